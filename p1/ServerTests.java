@@ -1,19 +1,38 @@
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerTests {
     private static int testsRun = 0;
     private static int testsFailed = 0;
 
     public static void main(String[] args) throws Exception {
-        testServerConfig();
-        testClientHandlerProtocol();
-        testJobAndWorker();
+        if (args.length > 0 && "sim".equals(args[0])) {
+            // Long simulation only: ServerTests sim [operations] [seed]
+            int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+            testSimulation(operations, seed);
+        } else {
+            testServerConfig();
+            testClientHandlerProtocol();
+            testJobAndWorker();
+            testServerShutdown();
+            testSimulation(SIM_DEFAULT_OPERATIONS, 42L);
+        }
 
         System.out.println("Tests run: " + testsRun + ", failures: " + testsFailed);
         if (testsFailed > 0) {
@@ -98,6 +117,64 @@ public class ServerTests {
         // Bad port
         ServerConfig cfg5 = ServerConfig.fromArgs(new String[] { "not-a-port" });
         assertNull(cfg5, "ServerConfig.fromArgs should reject a non-numeric port");
+
+        // Hot restart flags
+        ServerConfig cfg6 = ServerConfig.fromArgs(new String[] { "-v", "-r", "-d", "250", "7070" });
+        assertNotNull(cfg6, "ServerConfig.fromArgs should parse -v -r -d <ms> <port>");
+        if (cfg6 != null) {
+            assertEquals(7070L, cfg6.port, "ServerConfig.port should parse after the flags");
+            assertTrue(cfg6.reusePort, "ServerConfig.reusePort should be true when -r is present");
+            assertEquals(250L, cfg6.drainMs, "ServerConfig.drainMs should match -d");
+        }
+        if (cfg2 != null) {
+            assertTrue(!cfg2.reusePort, "ServerConfig.reusePort should default to false");
+            assertEquals(ServerConfig.DEFAULT_DRAIN_MS, cfg2.drainMs, "ServerConfig.drainMs should have a default");
+        }
+
+        // -d without a value, or with a bad value
+        assertNull(ServerConfig.fromArgs(new String[] { "-d", "8080" }), "ServerConfig.fromArgs should reject -d without a port");
+        assertNull(ServerConfig.fromArgs(new String[] { "-d", "-5", "8080" }), "ServerConfig.fromArgs should reject a negative drain");
+        assertNull(ServerConfig.fromArgs(new String[] { "-x", "8080" }), "ServerConfig.fromArgs should reject unknown flags");
+
+        // Acceptor count
+        ServerConfig cfg7 = ServerConfig.fromArgs(new String[] { "-r", "-a", "4", "8080" });
+        assertNotNull(cfg7, "ServerConfig.fromArgs should parse -r -a <n> <port>");
+        if (cfg7 != null) {
+            assertEquals(4L, cfg7.acceptors, "ServerConfig.acceptors should match -a");
+        }
+        if (cfg2 != null) {
+            assertEquals(1L, cfg2.acceptors, "ServerConfig.acceptors should default to 1");
+        }
+        assertNull(ServerConfig.fromArgs(new String[] { "-a", "0", "8080" }), "ServerConfig.fromArgs should reject zero acceptors");
+        assertNull(ServerConfig.fromArgs(new String[] { "-a", "2", "8080" }), "ServerConfig.fromArgs should require -r for several acceptors");
+        assertNotNull(ServerConfig.fromArgs(new String[] { "-a", "1", "8080" }), "ServerConfig.fromArgs should allow -a 1 without -r");
+
+        // Per-connection limits
+        ServerConfig cfg8 = ServerConfig.fromArgs(new String[] { "-i", "0", "-l", "64", "-c", "10", "8080" });
+        assertNotNull(cfg8, "ServerConfig.fromArgs should parse -i -l -c");
+        if (cfg8 != null) {
+            assertEquals(0L, cfg8.idleMs, "ServerConfig.idleMs should match -i");
+            assertEquals(64L, cfg8.maxLineLength, "ServerConfig.maxLineLength should match -l");
+            assertEquals(10L, cfg8.maxConnections, "ServerConfig.maxConnections should match -c");
+        }
+        if (cfg2 != null) {
+            assertEquals(ServerConfig.DEFAULT_IDLE_MS, cfg2.idleMs, "ServerConfig.idleMs should have a default");
+            assertEquals(ServerConfig.DEFAULT_MAX_LINE_LENGTH, cfg2.maxLineLength, "ServerConfig.maxLineLength should have a default");
+            assertEquals(ServerConfig.DEFAULT_MAX_CONNECTIONS, cfg2.maxConnections, "ServerConfig.maxConnections should have a default");
+        }
+        assertNull(ServerConfig.fromArgs(new String[] { "-l", "0", "8080" }), "ServerConfig.fromArgs should reject a zero line limit");
+        assertNull(ServerConfig.fromArgs(new String[] { "-c", "0", "8080" }), "ServerConfig.fromArgs should reject a zero connection limit");
+
+        // Worker pool bounds and hysteresis
+        ServerConfig cfg9 = ServerConfig.fromArgs(new String[] { "-p", "2:32", "-h", "3", "8080" });
+        assertNotNull(cfg9, "ServerConfig.fromArgs should parse -p <min>:<max> -h <samples>");
+        if (cfg9 != null) {
+            assertEquals(2L, cfg9.minWorkers, "ServerConfig.minWorkers should match -p");
+            assertEquals(32L, cfg9.maxWorkers, "ServerConfig.maxWorkers should match -p");
+            assertEquals(3L, cfg9.hysteresis, "ServerConfig.hysteresis should match -h");
+        }
+        assertNull(ServerConfig.fromArgs(new String[] { "-p", "8:2", "8080" }), "ServerConfig.fromArgs should reject min > max");
+        assertNull(ServerConfig.fromArgs(new String[] { "-p", "8", "8080" }), "ServerConfig.fromArgs should reject -p without a max");
     }
 
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -111,6 +188,12 @@ public class ServerTests {
         testUnknownCommand();
         testStatusUnknownId();
         testCancelUnknownId();
+        testStats();
+        testLineTooLong();
+        testLastLineWithoutNewline();
+        testStopDropsUnterminatedLine();
+        testLineLimitIgnoresCarriageReturn();
+        testIdleTimerUnwatch();
     }
 
     private static void testSubmitAndQuit() throws Exception {
@@ -206,6 +289,112 @@ public class ServerTests {
         }
     }
 
+    private static void testStats() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "1234" });
+        ServerStats stats = new ServerStats(2);
+        stats.connectionOpened(0);
+        stats.connectionOpened(1);
+        stats.connectionOpened(1);
+        stats.connectionClosed(1);
+        FakeSocket socket = new FakeSocket("STATS\nQUIT\n");
+        ClientHandler handler = new ClientHandler(socket, registry, config, stats);
+        handler.run();
+
+        String[] lines = linesOf(socket.getOutputAsString());
+        assertTrue(lines.length >= 2, "STATS + QUIT should produce at least two response lines");
+        if (lines.length >= 2) {
+            assertEquals("STATS connections=2 accepted=3 rejected=0 expired=0 acceptor0=1/1 acceptor1=2/1"
+                    + " workers=0 busy=0 queued=0 wait=0ms grown=0 shrunk=0", lines[0],
+                    "STATS should report totals and per-acceptor accepted/open counts");
+            assertEquals("BYE", lines[1], "QUIT should return BYE");
+        }
+    }
+
+    private static void testLineTooLong() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-l", "16", "1234" });
+        String longLine = "SUBMIT " + "9".repeat(100);
+        FakeSocket socket = new FakeSocket(longLine + "\nSTATUS 1\r\nQUIT\n");
+        ClientHandler handler = new ClientHandler(socket, registry, config);
+        handler.run();
+
+        String[] lines = linesOf(socket.getOutputAsString());
+        assertTrue(lines.length >= 3, "Long line + STATUS + QUIT should produce at least three response lines");
+        if (lines.length >= 3) {
+            assertEquals("ERR LINE_TOO_LONG", lines[0], "A line over the limit should produce ERR LINE_TOO_LONG");
+            assertEquals("STATUS 1 UNKNOWN", lines[1], "The connection should keep working after a long line");
+            assertEquals("BYE", lines[2], "QUIT should return BYE");
+        }
+        assertNull(registry.find(1L), "A rejected line must not create a job");
+    }
+
+    private static void testStopDropsUnterminatedLine() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "1234" });
+        // As if shutdown hit while the client was still sending "CANCEL 12".
+        FakeSocket socket = new FakeSocket("STATUS 1\nCANCEL 1");
+        ClientHandler handler = new ClientHandler(socket, registry, config);
+        handler.stop();
+        handler.run();
+
+        String[] lines = linesOf(socket.getOutputAsString());
+        assertEquals(1L, lines.length, "A stopped handler should only answer complete lines");
+        if (lines.length >= 1) {
+            assertEquals("STATUS 1 UNKNOWN", lines[0], "The complete line read before stopping should be answered");
+        }
+    }
+
+    private static void testLineLimitIgnoresCarriageReturn() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-l", "8", "1234" });
+        // "STATUS 1" is exactly 8 chars; the CRLF and LF forms must behave alike.
+        FakeSocket socket = new FakeSocket("STATUS 1\r\nSTATUS 1\nSTATUS 12\r\nQUIT\r\n");
+        ClientHandler handler = new ClientHandler(socket, registry, config);
+        handler.run();
+
+        String[] lines = linesOf(socket.getOutputAsString());
+        assertTrue(lines.length >= 4, "Three STATUS lines + QUIT should produce at least four response lines");
+        if (lines.length >= 4) {
+            assertEquals("STATUS 1 UNKNOWN", lines[0], "A CRLF line at the limit should be accepted");
+            assertEquals("STATUS 1 UNKNOWN", lines[1], "An LF line at the limit should be accepted");
+            assertEquals("ERR LINE_TOO_LONG", lines[2], "A CRLF line one over the limit should be rejected");
+            assertEquals("BYE", lines[3], "QUIT should return BYE");
+        }
+    }
+
+    private static void testIdleTimerUnwatch() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "1234" });
+        // Not started: only the bookkeeping is under test.
+        IdleTimer timer = new IdleTimer(60_000L, 8, new ServerStats(1), false);
+        FakeSocket socket = new FakeSocket("QUIT\n");
+        ClientHandler handler = new ClientHandler(socket, registry, config);
+        timer.watch(handler);
+        assertEquals(1L, timer.watched(), "A watched connection should be held by the wheel");
+
+        handler.run();
+        timer.unwatch(handler);
+        assertEquals(0L, timer.watched(), "A closed connection should be dropped from the wheel");
+        timer.watch(handler);
+        assertEquals(0L, timer.watched(), "A closed connection should never be put back in the wheel");
+    }
+
+    private static void testLastLineWithoutNewline() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "1234" });
+        FakeSocket socket = new FakeSocket("STATUS 7\nQUIT");
+        ClientHandler handler = new ClientHandler(socket, registry, config);
+        handler.run();
+
+        String[] lines = linesOf(socket.getOutputAsString());
+        assertTrue(lines.length >= 2, "A final line without a newline should still be handled");
+        if (lines.length >= 2) {
+            assertEquals("STATUS 7 UNKNOWN", lines[0], "STATUS should be answered");
+            assertEquals("BYE", lines[1], "A final QUIT without a newline should return BYE");
+        }
+    }
+
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // Tests for Job and JobWorker behavior
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -213,33 +402,584 @@ public class ServerTests {
     private static void testJobAndWorker() throws Exception {
         testJobCompletes();
         testJobCancellation();
+        testCancelledBeforeStart();
+        testWorkerPoolScaling();
+        testWorkerSurvivesFailingTask();
     }
 
     private static void testJobCompletes() throws Exception {
+        VirtualClock clock = new VirtualClock();
         Job job = new Job(1L, 50L);
-        Thread t = new Thread(new JobWorker(job));
+        Thread t = new Thread(new JobWorker(job, clock));
         t.start();
-        t.join(500L); // plenty of time for a 50ms job
+        runUntilFinished(t, clock);
 
-        JobState state = job.getState();
-        assertTrue(state == JobState.DONE || state == JobState.CANCELLED,
-                "Job should end in a terminal state (DONE or CANCELLED)");
+        assertEquals(JobState.DONE.name(), job.getState().name(), "Job should end in DONE");
+        assertEquals(50L, clock.millis(), "Job should take exactly its duration in virtual time");
     }
 
     private static void testJobCancellation() throws Exception {
+        VirtualClock clock = new VirtualClock();
         Job job = new Job(2L, 200L);
-        Thread t = new Thread(new JobWorker(job));
+        Thread t = new Thread(new JobWorker(job, clock));
         t.start();
 
-        // Give the worker a moment to start running
-        Thread.sleep(30L);
+        // Wait until the worker is asleep in its first chunk
+        assertTrue(clock.awaitBlocked(1, 1000L), "Worker should start sleeping on the virtual clock");
+        assertEquals(JobState.RUNNING.name(), job.getState().name(), "Sleeping worker's job should be RUNNING");
 
         boolean cancelled = job.cancel();
         assertTrue(cancelled, "Cancelling a running/queued job should return true");
 
-        t.join(1000L);
+        runUntilFinished(t, clock);
         JobState state = job.getState();
         assertEquals(JobState.CANCELLED.name(), state.name(), "Cancelled job should end in CANCELLED state");
+        assertEquals(25L, clock.millis(), "Cancellation should take effect after the current chunk");
+    }
+
+    // Advances the clock every time the worker goes to sleep, until it exits.
+    private static void runUntilFinished(Thread worker, VirtualClock clock) throws InterruptedException {
+        while (worker.isAlive()) {
+            if (clock.awaitBlocked(1, 10L)) {
+                clock.advanceToNextDeadline();
+            }
+        }
+    }
+
+    private static void testCancelledBeforeStart() throws Exception {
+        Job job = new Job(3L, 10_000L);
+        assertTrue(job.cancel(), "Cancelling a queued job should return true");
+        new JobWorker(job).run();
+        assertEquals(JobState.CANCELLED.name(), job.getState().name(),
+                "A job cancelled while queued should go straight to CANCELLED");
+    }
+
+    private static void testWorkerPoolScaling() throws Exception {
+        // sampleMs = 0: no scaler thread, the test drives rescale() itself.
+        WorkerPool pool = new WorkerPool(1, 8, 2, 0L, false);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 6; i++) {
+            pool.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {}
+            });
+        }
+        assertEquals(1L, pool.workers(), "The pool should start with minWorkers");
+        pool.rescale();
+        assertEquals(2L, pool.workers(), "A backlog should grow the pool, at most doubling it");
+        pool.rescale();
+        assertEquals(4L, pool.workers(), "A remaining backlog should keep growing the pool");
+        pool.rescale();
+        assertEquals(6L, pool.workers(), "The pool should grow only as far as the backlog needs");
+
+        release.countDown();
+        // Wait for the queue to empty too: a freshly started worker may not
+        // have picked up its task yet even though nobody is busy.
+        for (int i = 0; i < 100 && (pool.busy() > 0 || pool.queued() > 0); i++) {
+            Thread.sleep(10L);
+        }
+        pool.rescale();
+        assertEquals(6L, pool.workers(), "One quiet sample should not shrink the pool (hysteresis)");
+        pool.rescale();
+        assertEquals(3L, pool.workers(), "Enough quiet samples should retire half of the idle workers");
+        for (int i = 0; i < 10; i++) {
+            pool.rescale();
+        }
+        assertEquals(1L, pool.workers(), "The pool should never shrink below minWorkers");
+        assertTrue(pool.describe().contains("grown=3 shrunk="), "describe() should report scaling decisions");
+    }
+
+    private static void testWorkerSurvivesFailingTask() throws Exception {
+        WorkerPool pool = new WorkerPool(1, 1, 2, 0L, false);
+        pool.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        CountDownLatch ran = new CountDownLatch(1);
+        pool.execute(ran::countDown);
+        assertTrue(ran.await(1, TimeUnit.SECONDS), "A task after a failing one should still run");
+        for (int i = 0; i < 100 && pool.busy() > 0; i++) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1L, pool.workers(), "A failing task should not lose or leak a worker");
+        assertEquals(0L, pool.busy(), "A failing task should not leave the worker counted as busy");
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Tests for SimpleServer graceful shutdown using a real socket
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    private static void testServerShutdown() throws Exception {
+        testShutdownDrainsJobs();
+        testShutdownCancelsAfterDrainTimeout();
+        testReusePortShutdownUnderLoad();
+        testReusePortHandOff();
+        testMultipleAcceptors();
+        testIdleTimeout();
+        testConnectionLimit();
+    }
+
+    private static void testShutdownDrainsJobs() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        try (Socket socket = new Socket("localhost", server.getLocalPort());
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println("SUBMIT 100");
+            String response = in.readLine();
+            assertTrue(response != null && response.startsWith("JOB "), "SUBMIT over a real socket should return JOB <id>");
+
+            server.shutdown();
+            assertNull(in.readLine(), "Shutdown should close idle client connections");
+        }
+        acceptor.join(1000L);
+        assertTrue(!acceptor.isAlive(), "serve() should return once the server is shut down");
+
+        Job job = registry.find(1L);
+        assertNotNull(job, "The submitted job should be registered");
+        if (job != null) {
+            assertEquals(JobState.DONE.name(), job.getState().name(), "Shutdown should let running jobs finish");
+        }
+    }
+
+    private static void testShutdownCancelsAfterDrainTimeout() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-d", "50", "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        Job job = registry.createJob(10_000L);
+        server.shutdown();
+        acceptor.join(1000L);
+
+        assertEquals(JobState.CANCELLED.name(), job.getState().name(),
+                "Jobs still running when the drain timeout expires should be cancelled");
+    }
+
+    private static void testReusePortShutdownUnderLoad() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-r", "-d", "600", "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+        int port = server.getLocalPort();
+
+        // Keeps connecting for the whole shutdown, so the backlog never runs dry.
+        AtomicBoolean storming = new AtomicBoolean(true);
+        Thread storm = new Thread(() -> {
+            while (storming.get()) {
+                try (Socket socket = new Socket("localhost", port);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                    out.println("STATUS 1");
+                    in.readLine();
+                } catch (IOException ignored) {}
+                try {
+                    Thread.sleep(5L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        try (Socket socket = new Socket("localhost", port);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println("SUBMIT 100");
+            assertEquals("JOB 1", in.readLine(), "SUBMIT should be accepted before shutdown");
+            storm.start();
+            Thread.sleep(50L);
+
+            long started = System.currentTimeMillis();
+            server.shutdown();
+            long elapsed = System.currentTimeMillis() - started;
+            assertTrue(elapsed < config.drainMs, "A -r shutdown under load should end its hand-off before the drain timeout");
+            assertNull(in.readLine(), "Shutdown should close client connections");
+        } finally {
+            storming.set(false);
+            storm.join(1000L);
+        }
+        acceptor.join(1000L);
+        assertTrue(!acceptor.isAlive(), "The acceptor should stop when the hand-off window ends");
+        assertEquals(JobState.DONE.name(), registry.find(1L).getState().name(),
+                "A -r shutdown under load should still leave time for running jobs to finish");
+    }
+
+    private static void testReusePortHandOff() throws Exception {
+        if (!SimpleServer.tcpMigrateReqEnabled()) {
+            // Without it Linux resets connections queued on the closing
+            // socket, so a lossless hand-off is not possible.
+            System.out.println("SKIP: testReusePortHandOff needs net.ipv4.tcp_migrate_req=1");
+            return;
+        }
+        ServerConfig oldConfig = ServerConfig.fromArgs(new String[] { "-r", "-d", "2000", "0" });
+        SimpleServer oldServer = new SimpleServer(oldConfig, new JobRegistry());
+        oldServer.start();
+        int port = oldServer.getLocalPort();
+        ServerConfig newConfig = ServerConfig.fromArgs(new String[] { "-r", String.valueOf(port) });
+        SimpleServer newServer = new SimpleServer(newConfig, new JobRegistry());
+        newServer.start();
+        Thread oldAcceptor = new Thread(oldServer::serve);
+        Thread newAcceptor = new Thread(newServer::serve);
+        oldAcceptor.start();
+        newAcceptor.start();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger served = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread client = new Thread(() -> {
+                while (running.get()) {
+                    try (Socket socket = new Socket("localhost", port);
+                            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                            PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                        out.println("STATUS 1");
+                        if ("STATUS 1 UNKNOWN".equals(in.readLine())) {
+                            served.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+
+        Thread.sleep(200L);
+        oldServer.shutdown();
+        oldAcceptor.join(1000L);
+        Thread.sleep(200L);
+        running.set(false);
+        for (Thread client : clients) {
+            client.join(1000L);
+        }
+        newServer.shutdown();
+        newAcceptor.join(1000L);
+
+        assertTrue(oldServer.getStats().accepted(0) > 0, "The old server should have served part of the traffic");
+        assertTrue(newServer.getStats().accepted(0) > 0, "The new server should have served part of the traffic");
+        assertTrue(served.get() > 0, "Clients should have been served during the hand-off");
+        assertEquals(0L, failed.get(), "No request should fail while the old server hands off the port");
+    }
+
+    private static void testMultipleAcceptors() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-r", "-a", "3", "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        int connections = 30;
+        for (int i = 0; i < connections; i++) {
+            try (Socket socket = new Socket("localhost", server.getLocalPort());
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                out.println("QUIT");
+                assertEquals("BYE", in.readLine(), "Every acceptor should serve QUIT");
+            }
+        }
+        server.shutdown();
+        acceptor.join(1000L);
+        assertTrue(!acceptor.isAlive(), "serve() should return once every acceptor has stopped");
+
+        ServerStats stats = server.getStats();
+        long accepted = 0;
+        int active = 0;
+        for (int i = 0; i < config.acceptors; i++) {
+            accepted += stats.accepted(i);
+            if (stats.accepted(i) > 0)
+                active++;
+            assertEquals(0L, stats.open(i), "No connections should be open after shutdown");
+        }
+        assertEquals(connections, accepted, "Per-acceptor accept counts should add up to all connections");
+        // Each connection comes from a new source port, so the kernel's
+        // reuseport hash spreads them; all 30 landing on one socket would
+        // mean the other listeners were never in the group.
+        assertTrue(active > 1, "More than one acceptor should have accepted connections");
+    }
+
+    private static void testIdleTimeout() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-i", "100", "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        try (Socket socket = new Socket("localhost", server.getLocalPort());
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setSoTimeout(2000);
+            assertNull(in.readLine(), "An idle connection should be closed by the server");
+        }
+        assertEquals(1L, server.getStats().expired(), "The idle close should be counted");
+        server.shutdown();
+        acceptor.join(1000L);
+    }
+
+    private static void testConnectionLimit() throws Exception {
+        JobRegistry registry = new JobRegistry();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "-c", "1", "0" });
+        SimpleServer server = new SimpleServer(config, registry);
+        server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        try (Socket first = new Socket("localhost", server.getLocalPort());
+                BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+                PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true)) {
+            // Make sure the first connection has been accepted before opening the second.
+            firstOut.println("STATUS 1");
+            assertEquals("STATUS 1 UNKNOWN", firstIn.readLine(), "The first connection should be served");
+
+            try (Socket second = new Socket("localhost", server.getLocalPort());
+                    BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()))) {
+                assertEquals("ERR BUSY", secondIn.readLine(), "Connections over the limit should get ERR BUSY");
+                assertNull(secondIn.readLine(), "Connections over the limit should then be closed");
+            }
+        }
+        assertEquals(1L, server.getStats().rejected(), "The rejected connection should be counted");
+        server.shutdown();
+        acceptor.join(1000L);
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Simulation: random SUBMIT/STATUS/CANCEL traffic through ClientHandler and
+    // JobRegistry on a VirtualClock, checking the job state machine from the
+    // client's point of view and the autoscaling WorkerPool behind it.
+    //
+    // Each round sends a batch of commands over one fake connection, waits for
+    // the worker threads and the pool's scaler to settle, and advances the
+    // clock by one chunk. The scaler samples on the same clock, every
+    // SIM_SAMPLE_MS. Load alternates between short peaks with many SUBMITs
+    // and long troughs with few, so the pool has to grow to thousands of
+    // workers and shrink again.
+    //
+    // Invariants checked on every response:
+    // - JOB ids are handed out as 1, 2, 3, ... with no gaps.
+    // - A job's state never moves backwards, and DONE/CANCELLED never change.
+    // - DONE only once the job's duration has elapsed, and never after a
+    //   CANCEL was accepted; CANCELLED only after a CANCEL was accepted.
+    // - CANCELLED responses only for jobs that have not finished.
+    // - Unknown ids report UNKNOWN.
+    // And on the pool:
+    // - Its size stays within [SIM_MIN_WORKERS, SIM_MAX_WORKERS] every round.
+    // - Once the load stops it shrinks back to SIM_MIN_WORKERS.
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    private static final int SIM_DEFAULT_OPERATIONS = 100_000;
+    private static final int SIM_MIN_WORKERS = 4;
+    private static final int SIM_MAX_WORKERS = 2048;
+    private static final int SIM_HYSTERESIS = 3;
+    private static final long SIM_SAMPLE_MS = 100;
+    private static final int SIM_BATCH = 500;
+    private static final int SIM_MAX_MS = 400;
+    // Out of every SIM_CYCLE_ROUNDS rounds, the first SIM_PEAK_ROUNDS are peak.
+    private static final int SIM_CYCLE_ROUNDS = 100;
+    private static final int SIM_PEAK_ROUNDS = 16;
+    // One JobWorker chunk, so every running job makes progress each round.
+    private static final long SIM_STEP_MS = 25;
+    private static final int SIM_MAX_VIOLATIONS = 10;
+
+    private static final class SimJob {
+        final long id;
+        final long durationMs;
+        final long submittedAt;
+        JobState observed = JobState.QUEUED;
+        boolean cancelAccepted;
+
+        SimJob(long id, long durationMs, long submittedAt) {
+            this.id = id;
+            this.durationMs = durationMs;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    private static void testSimulation(int operations, long seed) throws Exception {
+        long started = System.nanoTime();
+        VirtualClock clock = new VirtualClock();
+        WorkerPool pool = new WorkerPool(SIM_MIN_WORKERS, SIM_MAX_WORKERS, SIM_HYSTERESIS, SIM_SAMPLE_MS, false, clock);
+        JobRegistry registry = new JobRegistry(pool);
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "1234" });
+        Random random = new Random(seed);
+        List<SimJob> jobs = new ArrayList<>();
+        List<String> violations = new ArrayList<>();
+        int peakBusy = 0;
+
+        int sent = 0;
+        for (int round = 0; sent < operations; round++) {
+            boolean peak = round % SIM_CYCLE_ROUNDS < SIM_PEAK_ROUNDS;
+            int batch = Math.min(SIM_BATCH, operations - sent);
+            StringBuilder script = new StringBuilder();
+            List<String[]> commands = new ArrayList<>();
+            for (int i = 0; i < batch; i++) {
+                String[] command = randomCommand(random, jobs.size() + commands.size(), peak);
+                commands.add(command);
+                script.append(command[0]).append(' ').append(command[1]).append('\n');
+            }
+            script.append("QUIT\n");
+            sent += batch;
+
+            FakeSocket socket = new FakeSocket(script.toString());
+            new ClientHandler(socket, registry, config).run();
+            String[] lines = linesOf(socket.getOutputAsString());
+            if (lines.length != batch + 1) {
+                violation(violations, "expected " + (batch + 1) + " responses, got " + lines.length);
+                break;
+            }
+            for (int i = 0; i < batch; i++) {
+                checkResponse(commands.get(i), lines[i], jobs, clock.millis(), violations);
+            }
+
+            if (!settleAndCheckPool(pool, clock, violations)) {
+                break;
+            }
+            peakBusy = Math.max(peakBusy, pool.busy());
+            clock.advance(SIM_STEP_MS);
+        }
+
+        // Let everything that is still queued or running finish.
+        while (violations.isEmpty() && !registry.awaitIdle(0L) && settleAndCheckPool(pool, clock, violations)) {
+            peakBusy = Math.max(peakBusy, pool.busy());
+            clock.advance(SIM_STEP_MS);
+        }
+        for (SimJob job : jobs) {
+            JobState state = registry.find(job.id).getState();
+            JobState expected = job.cancelAccepted ? JobState.CANCELLED : JobState.DONE;
+            if (state != expected) {
+                violation(violations, "job " + job.id + " ended " + state + ", expected " + expected);
+            }
+        }
+
+        // With no load left the pool has to come back down to its minimum.
+        for (int i = 0; i < 100 && violations.isEmpty() && pool.workers() > SIM_MIN_WORKERS; i++) {
+            if (settleAndCheckPool(pool, clock, violations)) {
+                clock.advance(SIM_SAMPLE_MS);
+            }
+        }
+        settleAndCheckPool(pool, clock, violations);
+
+        for (String v : violations) {
+            System.err.println("SIM: " + v);
+        }
+        assertTrue(violations.isEmpty(), "Simulation (seed=" + seed + ") should not violate any job or pool invariant");
+        assertEquals(operations, sent, "Simulation should send every operation");
+        assertTrue(pool.grown() > 0 && pool.shrunk() > 0, "Simulation should make the pool both grow and shrink");
+        assertEquals(SIM_MIN_WORKERS, pool.workers(), "The pool should shrink to its minimum once the load stops");
+        if (operations >= SIM_DEFAULT_OPERATIONS) {
+            assertTrue(peakBusy >= 1000, "Simulation should run thousands of jobs concurrently (peak=" + peakBusy + ")");
+        }
+        System.out.println("Simulation: " + sent + " operations, " + jobs.size() + " jobs, peak " + peakBusy
+                + " running, " + clock.millis() + "ms virtual in " + (System.nanoTime() - started) / 1_000_000
+                + "ms (seed=" + seed + ")");
+    }
+
+    // During a peak 1 command in 2 is a SUBMIT, in a trough 1 in 100, so the
+    // load swings by about 50x. STATUS and CANCEL sometimes target ids that do
+    // not exist.
+    private static String[] randomCommand(Random random, int knownJobs, boolean peak) {
+        int roll = random.nextInt(100);
+        if (roll < (peak ? 50 : 1) || knownJobs == 0) {
+            return new String[] { "SUBMIT", Integer.toString(1 + random.nextInt(SIM_MAX_MS)) };
+        }
+        long id = 1 + random.nextInt(knownJobs + 2);
+        return new String[] { roll < 70 ? "STATUS" : "CANCEL", Long.toString(id) };
+    }
+
+    private static void checkResponse(String[] command, String response, List<SimJob> jobs, long now,
+            List<String> violations) {
+        String[] parts = response.split(" ");
+        if (command[0].equals("SUBMIT")) {
+            long expectedId = jobs.size() + 1;
+            if (!response.equals("JOB " + expectedId)) {
+                violation(violations, "SUBMIT expected JOB " + expectedId + ", got " + response);
+            }
+            jobs.add(new SimJob(expectedId, Long.parseLong(command[1]), now));
+            return;
+        }
+
+        long id = Long.parseLong(command[1]);
+        SimJob job = id <= jobs.size() ? jobs.get((int) id - 1) : null;
+        if (job == null) {
+            String expected = command[0].equals("STATUS") ? "STATUS " + id + " UNKNOWN" : "NOTCANCELLED " + id + " UNKNOWN";
+            if (!response.equals(expected)) {
+                violation(violations, command[0] + " " + id + " expected " + expected + ", got " + response);
+            }
+            return;
+        }
+
+        if (response.equals("CANCELLED " + id)) {
+            if (!command[0].equals("CANCEL") || isTerminal(job.observed)) {
+                violation(violations, "job " + id + " was cancelled after it was seen " + job.observed);
+            }
+            job.cancelAccepted = true;
+            return;
+        }
+        boolean statusLine = command[0].equals("STATUS") && parts.length == 3 && parts[0].equals("STATUS");
+        boolean notCancelledLine = command[0].equals("CANCEL") && parts.length == 3 && parts[0].equals("NOTCANCELLED");
+        if (!(statusLine || notCancelledLine) || !parts[1].equals(command[1])) {
+            violation(violations, command[0] + " " + id + " got malformed response " + response);
+            return;
+        }
+        JobState state = JobState.valueOf(parts[2]);
+        if (notCancelledLine && !isTerminal(state)) {
+            violation(violations, "job " + id + " refused cancel while " + state);
+        }
+        if (state.ordinal() < job.observed.ordinal() || (isTerminal(job.observed) && state != job.observed)) {
+            violation(violations, "job " + id + " went from " + job.observed + " to " + state);
+        }
+        if (state == JobState.DONE && (job.cancelAccepted || now - job.submittedAt < job.durationMs)) {
+            violation(violations, "job " + id + " DONE too early or after cancel (t=" + now + ")");
+        }
+        if (state == JobState.CANCELLED && !job.cancelAccepted) {
+            violation(violations, "job " + id + " CANCELLED without an accepted cancel");
+        }
+        job.observed = state;
+    }
+
+    private static boolean isTerminal(JobState state) {
+        return state == JobState.DONE || state == JobState.CANCELLED;
+    }
+
+    // The pool is settled when every busy worker and the scaler are asleep on
+    // the clock, and no queued job is waiting for an idle worker. Only the
+    // busy workers and the scaler ever sleep on the clock, so blocked()
+    // reaching busy + 1 means all of them are parked. Once settled, checks
+    // that the pool is within its bounds.
+    private static boolean settleAndCheckPool(WorkerPool pool, VirtualClock clock, List<String> violations) {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < deadline) {
+            int busy = pool.busy();
+            int sleepers = busy + (pool.hasScaler() ? 1 : 0);
+            if (sleepers == clock.blocked() && (pool.queued() == 0 || busy == pool.workers())) {
+                int workers = pool.workers();
+                if (workers < SIM_MIN_WORKERS || workers > SIM_MAX_WORKERS) {
+                    violation(violations, "pool size " + workers + " out of bounds at t=" + clock.millis());
+                }
+                return true;
+            }
+            Thread.yield();
+        }
+        violation(violations, "workers did not settle at t=" + clock.millis());
+        return false;
+    }
+
+    private static void violation(List<String> violations, String message) {
+        if (violations.size() < SIM_MAX_VIOLATIONS) {
+            violations.add(message);
+        }
     }
 
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -4,6 +4,7 @@ import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class PerfClient {
     public static void main(String[] args) throws Exception {
@@ -16,15 +17,20 @@ class PerfClient {
 
     private static PerfClient fromArgs(String[] args) {
         boolean verbose = false;
+        boolean storm = false;
         int index = 0;
 
-        if (args.length > 0 && "-v".equals(args[0])) {
-            verbose = true;
+        while (index < args.length && ("-v".equals(args[index]) || "-s".equals(args[index]))) {
+            if ("-v".equals(args[index])) {
+                verbose = true;
+            } else {
+                storm = true;
+            }
             index++;
         }
 
         if (args.length - index < 5) {
-            System.err.println("Usage: pclient.java [-v] <host> <port> <clients> <jobsPerClient> <ms>");
+            System.err.println("Usage: pclient.java [-v] [-s] <host> <port> <clients> <jobsPerClient> <ms>");
             return null;
         }
 
@@ -34,7 +40,7 @@ class PerfClient {
         int jobsPerClient = Integer.parseInt(args[index + 3]);
         int durationMs = Integer.parseInt(args[index + 4]);
 
-        return new PerfClient(host, port, clients, jobsPerClient, durationMs, verbose);
+        return new PerfClient(host, port, clients, jobsPerClient, durationMs, verbose, storm);
     }
 
     private final String host;
@@ -43,21 +49,35 @@ class PerfClient {
     private final int jobsPerClient;
     private final int durationMs;
     private final boolean verbose;
+    // Reconnect storm: open a fresh connection for every job instead of
+    // reusing one per client, to measure how fast the server accepts.
+    private final boolean storm;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
 
-    private PerfClient(String host, int port, int clients, int jobsPerClient, int durationMs, boolean verbose) {
+    private PerfClient(String host, int port, int clients, int jobsPerClient, int durationMs, boolean verbose,
+            boolean storm) {
         this.host = host;
         this.port = port;
         this.clients = clients;
         this.jobsPerClient = jobsPerClient;
         this.durationMs = durationMs;
         this.verbose = verbose;
+        this.storm = storm;
     }
 
     private void run() throws InterruptedException {
+        long start = System.nanoTime();
         List<Thread> threads = new ArrayList<>();
         for (int i = 0; i < clients; i++) {
             int clientId = i;
-            Thread t = new Thread(() -> runClient(clientId));
+            Thread t = new Thread(() -> {
+                if (storm) {
+                    runStormClient(clientId);
+                } else {
+                    runClient(clientId);
+                }
+            });
             threads.add(t);
             t.start();
         }
@@ -65,6 +85,36 @@ class PerfClient {
         for (Thread t : threads) {
             t.join();
         }
+
+        if (storm) {
+            long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.println("connections=" + connections.get() + " failed=" + failures.get()
+                    + " elapsed=" + elapsedMs + "ms rate=" + (connections.get() * 1000L / elapsedMs) + "/s");
+        }
+    }
+
+    private void runStormClient(int clientId) {
+        for (int i = 0; i < jobsPerClient; i++) {
+            try (Socket socket = new Socket(host, port);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                out.println("SUBMIT " + durationMs);
+                String response = in.readLine();
+                if (response == null) {
+                    failures.incrementAndGet();
+                    continue;
+                }
+                connections.incrementAndGet();
+                if (verbose) {
+                    System.out.println("client " + clientId + " -> " + response);
+                }
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                if (verbose) {
+                    System.err.println("Client " + clientId + " failed: " + e.getMessage());
+                }
+            }
+        }
     }
 
     private void runClient(int clientId) {
@@ -1,30 +1,521 @@
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.IOException;
 
+// SimpleServer owns the listening sockets and the lifetime of every
+// connection it accepts. It runs one or more acceptor threads (-a, which
+// needs -r for more than one): each acceptor binds its own SO_REUSEPORT
+// socket on the same port and the kernel spreads new connections across
+// them.
+//
+// Shutdown (SIGTERM / Ctrl-C, or shutdown() directly) happens in stages:
+// - Stop accepting. With -r a new server process can already be listening on
+//   the same port; the old one keeps accepting for a short hand-off window
+//   (until its backlog is empty, or at most MAX_HANDOFF_MS and half of -d)
+//   and then closes. The kernel keeps routing new connections to an open
+//   socket, so under load the window is what ends the hand-off.
+// - Give every connection STOP_GRACE_MS to send one more request and get
+//   its answer, then stop reading; a request already read is still
+//   answered. Freshly accepted connections get their first request served.
+// - Wait for running jobs to finish, and cancel whatever is left once the
+//   drain timeout (-d) runs out.
+//
+// Closing a listening socket resets connections still queued on it unless
+// Linux can move them to another socket in the SO_REUSEPORT group, which
+// needs net.ipv4.tcp_migrate_req=1 (Linux 5.14+). Only with that setting
+// does a -r hand-off refuse no connections; start() warns when it is off.
+//
+// Connections over the -c limit are answered with ERR BUSY and closed, and
+// an IdleTimer closes connections that stay quiet for longer than -i.
+//
 class SimpleServer {
+    private static final int ACCEPT_POLL_MS = 200;
+    private static final long MAX_HANDOFF_MS = 1000;
+    private static final long STOP_GRACE_MS = 200;
+    private static final String TCP_MIGRATE_REQ = "/proc/sys/net/ipv4/tcp_migrate_req";
+    private static final int IDLE_TIMER_SLOTS = 64;
+
+    private final ServerConfig config;
+    private final JobRegistry registry;
+    private final ServerStats stats;
+    private final List<Acceptor> acceptors = new ArrayList<>();
+    private final Set<ClientHandler> handlers = new HashSet<>();
+    private IdleTimer idleTimer;
+    private volatile boolean stopping;
+    private int liveAcceptors;
+
+    SimpleServer(ServerConfig config, JobRegistry registry) {
+        this.config = config;
+        this.registry = registry;
+        this.stats = new ServerStats(config.acceptors);
+    }
+
     public static void main(String[] args) throws Exception {
         ServerConfig config = ServerConfig.fromArgs(args);
         if (config == null)
             return;
 
-        JobRegistry registry = new JobRegistry();
-        try (ServerSocket serverSocket = new ServerSocket(config.port)) {
+        WorkerPool pool = new WorkerPool(config.minWorkers, config.maxWorkers, config.hysteresis,
+                WorkerPool.DEFAULT_SAMPLE_MS, config.verbose);
+        SimpleServer server = new SimpleServer(config, new JobRegistry(pool));
+        try {
+            server.start();
+        } catch (Exception e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            server.closeSockets();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+        server.serve();
+    }
+
+    void start() throws IOException {
+        if (config.reusePort && !tcpMigrateReqEnabled()) {
+            System.err.println("Warning: " + TCP_MIGRATE_REQ + " is not 1; connections queued on this server"
+                    + " when it shuts down will be reset instead of handed over");
+        }
+        int port = config.port;
+        for (int i = 0; i < config.acceptors; i++) {
+            ServerSocket socket = bind(port);
+            // Later sockets must land on the same port even when the
+            // configured port was 0 (ephemeral).
+            port = socket.getLocalPort();
+            acceptors.add(new Acceptor(i, socket));
+        }
+        liveAcceptors = acceptors.size();
+        if (config.idleMs > 0) {
+            idleTimer = new IdleTimer(config.idleMs, IDLE_TIMER_SLOTS, stats, config.verbose);
+            Thread t = new Thread(idleTimer, "idle-timer");
+            t.setDaemon(true);
+            t.start();
+        }
+        if (config.verbose) {
+            System.out.println("Server started on port " + port + " with " + acceptors.size() + " acceptor(s)");
+        }
+    }
+
+    private ServerSocket bind(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        if (config.reusePort) {
+            if (!socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                socket.close();
+                throw new IOException("SO_REUSEPORT is not supported on this platform");
+            }
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        socket.bind(new InetSocketAddress(port));
+        socket.setSoTimeout(ACCEPT_POLL_MS);
+        return socket;
+    }
+
+    // Whether Linux moves queued connections to another SO_REUSEPORT socket
+    // when a listener closes. False when the setting can't be read.
+    static boolean tcpMigrateReqEnabled() {
+        try {
+            return "1".equals(Files.readString(Path.of(TCP_MIGRATE_REQ)).trim());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+        int getLocalPort() {
+        return acceptors.get(0).serverSocket.getLocalPort();
+    }
+
+    ServerStats getStats() {
+        return stats;
+    }
+
+    // Runs the first acceptor on the calling thread and the rest on their
+    // own threads; returns once all of them have stopped.
+    void serve() {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i < acceptors.size(); i++) {
+            Thread t = new Thread(acceptors.get(i), "acceptor-" + i);
+            threads.add(t);
+            t.start();
+        }
+        acceptors.get(0).run();
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void startHandler(Socket socket, int acceptor) {
+        ClientHandler handler = new ClientHandler(socket, registry, config, stats);
+        // Check and add in one step, or several acceptors could all pass the
+        // check together and go over the limit.
+        boolean admitted;
+        synchronized (this) {
+            admitted = handlers.size() < config.maxConnections;
+            if (admitted)
+                handlers.add(handler);
+        }
+        if (!admitted) {
+            stats.connectionRejected();
+            reject(socket);
+            return;
+        }
+        stats.connectionOpened(acceptor);
+        Thread connection = new Thread(() -> {
+            try {
+                handler.run();
+            } finally {
+                if (idleTimer != null) {
+                    idleTimer.unwatch(handler);
+                }
+                stats.connectionClosed(acceptor);
+                synchronized (this) {
+                    handlers.remove(handler);
+                    notifyAll();
+                }
+            }
+        });
+        if (idleTimer != null) {
+            idleTimer.watch(handler);
+        }
+        connection.start();
+    }
+
+    private void reject(Socket socket) {
+        // A single short line fits in the send buffer of a fresh socket, so
+        // this cannot block the acceptor.
+        try {
+            socket.getOutputStream().write("ERR BUSY\n".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    void shutdown() {
+        long now = System.currentTimeMillis();
+        long deadline = now + config.drainMs;
+        stopping = true;
+        try {
+            if (config.reusePort) {
+                long handoffDeadline = now + Math.min(MAX_HANDOFF_MS, config.drainMs / 2);
+                synchronized (this) {
+                    while (liveAcceptors > 0 && waitUntil(handoffDeadline)) {}
+                }
+            }
+            // Without -r nobody else is going to take over the port, so there
+            // is no point in draining the backlog. With -r the hand-off window
+            // is over. Either way, make sure no acceptor starts another
+            // handler after the snapshot below.
+            closeSockets();
+            List<ClientHandler> open;
+            synchronized (this) {
+                while (liveAcceptors > 0 && waitUntil(deadline)) {}
+                open = new ArrayList<>(handlers);
+            }
             if (config.verbose) {
-                System.out.println("Server started on port " + config.port);
+                System.out.println("Shutting down: closing " + open.size() + " connection(s)");
             }
-            while (true) {
-                Socket socket = serverSocket.accept();
-                Thread connection = new Thread(new ClientHandler(socket, registry, config));
-                connection.start();
+            for (ClientHandler handler : open) {
+                handler.finishAndClose();
+            }
+            long graceDeadline = Math.min(deadline, System.currentTimeMillis() + STOP_GRACE_MS);
+            synchronized (this) {
+                while (!handlers.isEmpty() && waitUntil(graceDeadline)) {}
+                open = new ArrayList<>(handlers);
+            }
+            for (ClientHandler handler : open) {
+                handler.stop();
+            }
+            synchronized (this) {
+                while (!handlers.isEmpty() && waitUntil(deadline)) {}
+                for (ClientHandler handler : handlers) {
+                    handler.close();
+                }
+            }
+
+            if (!registry.awaitIdle(Math.max(1, deadline - System.currentTimeMillis()))) {
+                int cancelled = registry.cancelAll();
+                System.err.println("Drain timed out: cancelled " + cancelled + " running job(s)");
+                registry.awaitIdle(ACCEPT_POLL_MS);
+            }
+            if (idleTimer != null) {
+                idleTimer.stop();
+            }
+            if (config.verbose) {
+                System.out.println("Server stopped: " + stats.describe());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeSockets() {
+        for (Acceptor acceptor : acceptors) {
+            try {
+                acceptor.serverSocket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private boolean waitUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+            return false;
+        wait(remaining);
+        return true;
+    }
+
+    // One accept loop on its own listening socket.
+    private class Acceptor implements Runnable {
+        private final int index;
+        private final ServerSocket serverSocket;
+
+        Acceptor(int index, ServerSocket serverSocket) {
+            this.index = index;
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (SocketTimeoutException e) {
+                        // Nothing waiting in the backlog; once we are stopping
+                        // that means every connection routed to us has been
+                        // picked up.
+                        if (stopping)
+                            break;
+                        continue;
+                    } catch (SocketException e) {
+                        if (stopping)
+                            break;
+                        throw e;
+                    }
+                    if (stopping && !config.reusePort) {
+                        socket.close();
+                        break;
+                    }
+                    startHandler(socket, index);
+                }
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            } finally {
+                try {
+                    serverSocket.close();
+                } catch (IOException ignored) {}
+                synchronized (SimpleServer.this) {
+                    liveAcceptors--;
+                    SimpleServer.this.notifyAll();
+                }
+            }
+        }
+    }
+}
+
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// ServerStats keeps per-acceptor connection counters. Counters are atomics so
+// acceptor and handler threads can update them without sharing a lock, and
+// describe() renders them as the single-line body of a STATS response.
+//
+class ServerStats {
+    private final AtomicLong[] accepted;
+    private final AtomicInteger[] open;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    ServerStats(int acceptors) {
+        accepted = new AtomicLong[acceptors];
+        open = new AtomicInteger[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            accepted[i] = new AtomicLong();
+            open[i] = new AtomicInteger();
+        }
+    }
+
+    void connectionOpened(int acceptor) {
+        accepted[acceptor].incrementAndGet();
+        open[acceptor].incrementAndGet();
+    }
+
+    void connectionClosed(int acceptor) {
+        open[acceptor].decrementAndGet();
+    }
+
+    // Turned away because the server was at its connection limit.
+    void connectionRejected() {
+        rejected.incrementAndGet();
+    }
+
+    // Closed by IdleTimer.
+    void connectionExpired() {
+        expired.incrementAndGet();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    long expired() {
+        return expired.get();
+    }
+
+    long accepted(int acceptor) {
+        return accepted[acceptor].get();
+    }
+
+    int open(int acceptor) {
+        return open[acceptor].get();
+    }
+
+    // connections=<open> accepted=<total> rejected=<n> expired=<n>
+    // acceptor<i>=<accepted>/<open> ...
+    String describe() {
+        long totalAccepted = 0;
+        int totalOpen = 0;
+        StringBuilder perAcceptor = new StringBuilder();
+        for (int i = 0; i < accepted.length; i++) {
+            long a = accepted[i].get();
+            int o = open[i].get();
+            totalAccepted += a;
+            totalOpen += o;
+            perAcceptor.append(" acceptor").append(i).append('=').append(a).append('/').append(o);
+        }
+        return "connections=" + totalOpen + " accepted=" + totalAccepted + " rejected=" + rejected.get()
+                + " expired=" + expired.get() + perAcceptor;
+    }
+}
+
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// IdleTimer closes connections that have not sent a line for idleMs. It is a
+// hashed timing wheel driven by a single thread, so watching a connection
+// costs one slot entry rather than a thread or a scheduled task each.
+//
+// Handlers never touch the wheel when they receive a line; they only bump
+// their lastActivity time. When the wheel reaches an entry it compares that
+// time with the deadline and either closes the connection or puts the entry
+// back into the slot of its new deadline. A connection that closes is
+// unwatched right away, so the wheel only ever holds open connections.
+//
+class IdleTimer implements Runnable {
+    private final long idleMs;
+    private final long tickMs;
+    private final List<Set<ClientHandler>> wheel = new ArrayList<>();
+    // Slot each watched handler currently sits in, so unwatch() is O(1).
+    private final Map<ClientHandler, Integer> slotOf = new HashMap<>();
+    private final ServerStats stats;
+    private final boolean verbose;
+    private long tick;
+    private volatile boolean running = true;
+
+    IdleTimer(long idleMs, int slots, ServerStats stats, boolean verbose) {
+        this.idleMs = idleMs;
+        this.tickMs = Math.max(1, idleMs / slots);
+        this.stats = stats;
+        this.verbose = verbose;
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new HashSet<>());
+        }
+        this.tick = System.currentTimeMillis() / tickMs;
+    }
+
+    void watch(ClientHandler handler) {
+        schedule(handler, handler.lastActivity() + idleMs);
+    }
+
+    synchronized void unwatch(ClientHandler handler) {
+        Integer slot = slotOf.remove(handler);
+        if (slot != null)
+            wheel.get(slot).remove(handler);
+    }
+
+    synchronized int watched() {
+        return slotOf.size();
+    }
+
+    private synchronized void schedule(ClientHandler handler, long deadline) {
+        // The handler may have closed (and found nothing to unwatch) while
+        // run() had it out of the wheel; don't put it back.
+        if (handler.isClosed())
+            return;
+        // Never schedule into the slot being processed or an earlier one, or
+        // the entry would wait a full revolution.
+        long slot = Math.max(deadline / tickMs, tick + 1);
+        int index = (int) (slot % wheel.size());
+        wheel.get(index).add(handler);
+        slotOf.put(handler, index);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            List<ClientHandler> due;
+            synchronized (this) {
+                if (now / tickMs <= tick) {
+                    due = null;
+                } else {
+                    tick++;
+                    Set<ClientHandler> slot = wheel.get((int) (tick % wheel.size()));
+                    due = new ArrayList<>(slot);
+                    slot.clear();
+                    for (ClientHandler h : due) {
+                        slotOf.remove(h);
+                    }
+                }
+            }
+            if (due == null) {
+                try {
+                    Thread.sleep(tickMs - now % tickMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            for (ClientHandler handler : due) {
+                if (handler.isClosed())
+                    continue;
+                long deadline = handler.lastActivity() + idleMs;
+                if (deadline > now) {
+                    schedule(handler, deadline);
+                    continue;
+                }
+                if (verbose) {
+                    System.out.println("Closing idle connection");
+                }
+                stats.connectionExpired();
+                handler.close();
             }
-        } catch (Exception e) {
-            System.err.println("Error starting server: " + e.getMessage());
         }
     }
 }
@@ -36,38 +527,63 @@ class SimpleServer {
 // - Parsing the command and arguments.
 // - Enforcing usage errors and bad input errors.
 // - Delegating to the job registry to create, lookup, or cancel jobs.
-// - Returning the protocol strings (JOB, STATUS, CANCELLED, NOTCANCELLED, BYE).
+// - Returning the protocol strings (JOB, STATUS, CANCELLED, NOTCANCELLED, STATS, BYE).
 // - Keeping all protocol output deterministic and single-line.
+// - Finishing the current request and closing when asked to stop.
+// - Rejecting lines longer than the configured limit without buffering them.
 //
 class ClientHandler implements Runnable {
     private final Socket socket;
     private final JobRegistry registry;
     private final ServerConfig config;
+    private final ServerStats stats;
+    private volatile boolean stopping;
+    private volatile boolean closed;
+    private volatile long lastActivity = System.currentTimeMillis();
+    // Set by readLine() when the line it just consumed was over the limit.
+    private boolean lineTooLong;
+    // Set by readLine() when the line it just returned ended with '\n'
+    // rather than at end of input.
+    private boolean lineTerminated;
 
     ClientHandler(Socket socket, JobRegistry registry, ServerConfig config) {
+        this(socket, registry, config, new ServerStats(1));
+    }
+
+    ClientHandler(Socket socket, JobRegistry registry, ServerConfig config, ServerStats stats) {
         this.socket = socket;
         this.registry = registry;
         this.config = config;
+        this.stats = stats;
     }
 
     @Override
     public void run() {
         try (BufferedReader in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
                 PrintWriter out = new PrintWriter(this.socket.getOutputStream(), true)) {
+            StringBuilder buffer = new StringBuilder();
             while (true) {
-                String line = in.readLine();
+                String line = readLine(in, buffer);
                 if (line == null) {
                     break;
                 }
+                // stop() makes the input look like EOF, so a line cut off there
+                // may be a command the client was still sending (CANCEL 1 of
+                // CANCEL 12). Only a real client EOF gets its last line run.
+                if (!lineTerminated && stopping) {
+                    break;
+                }
+                lastActivity = System.currentTimeMillis();
                 if (config.verbose) {
-                    System.out.println("recv: " + line);
+                    String shown = lineTooLong ? "<line over " + config.maxLineLength + " chars>" : line;
+                    System.out.println("recv: " + shown);
                 }
-                String response = handle(line);
+                String response = lineTooLong ? "ERR LINE_TOO_LONG" : handle(line);
                 out.println(response);
                 if (config.verbose) {
                     System.out.println("send: " + response);
                 }
-                if ("BYE".equals(response)) {
+                if ("BYE".equals(response) || stopping) {
                     try {
                         this.socket.close();
                     } catch (IOException ignored) {}
@@ -75,15 +591,88 @@ class ClientHandler implements Runnable {
                 }
             }
         } catch (IOException e) {
+            if (stopping)
+                return;
             System.err.println("Error reading from socket: " + e.getMessage());
             try {
                 this.socket.close();
             } catch (Exception ex) {
                 System.err.println("Error closing socket: " + ex.getMessage());
             }
+        } finally {
+            closed = true;
         }
     }
 
+    // Like BufferedReader.readLine(), but never holds more than
+    // config.maxLineLength chars: once a line goes over, the rest of it is
+    // read and discarded, lineTooLong is set and an empty line is returned.
+    // A '\r' just before the '\n' is the line terminator, not content, so it
+    // does not count toward the limit.
+    private String readLine(BufferedReader in, StringBuilder buffer) throws IOException {
+        buffer.setLength(0);
+        lineTooLong = false;
+        boolean pendingCr = false;
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (pendingCr) {
+                pendingCr = false;
+                appendLimited(buffer, '\r');
+            }
+            if (c == '\r') {
+                pendingCr = true;
+                continue;
+            }
+            appendLimited(buffer, (char) c);
+        }
+        lineTerminated = c == '\n';
+        if (c == -1 && buffer.length() == 0 && !pendingCr && !lineTooLong)
+            return null;
+        return buffer.toString();
+    }
+
+    private void appendLimited(StringBuilder buffer, char c) {
+        if (lineTooLong)
+            return;
+        if (buffer.length() >= config.maxLineLength) {
+            lineTooLong = true;
+            buffer.setLength(0);
+            return;
+        }
+        buffer.append(c);
+    }
+
+    // Time of the last line received, used by IdleTimer.
+    long lastActivity() {
+        return lastActivity;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // Asks the handler to close after answering its next request. It keeps
+    // waiting for that request until stop() or close() is called.
+    void finishAndClose() {
+        stopping = true;
+    }
+
+    // Asks the handler to wrap up: a request that has already been read still
+    // gets its response, but no further lines are read from the client.
+    void stop() {
+        stopping = true;
+        try {
+            this.socket.shutdownInput();
+        } catch (IOException ignored) {}
+    }
+
+    void close() {
+        stopping = true;
+        try {
+            this.socket.close();
+        } catch (IOException ignored) {}
+    }
+
     private String handle(String line) {
         String trimmed = line.trim();
         if (trimmed.isEmpty()) {
@@ -106,6 +695,9 @@ class ClientHandler implements Runnable {
                 return usageError("CANCEL", "<id>");
             return handleCancel(parts[1]);
         }
+        if (command.equals("STATS")) {
+            return "STATS " + stats.describe() + " " + registry.getPool().describe();
+        }
         if (command.equals("QUIT")) {
             return "BYE";
         }
@@ -171,38 +763,122 @@ class ClientHandler implements Runnable {
 // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 // ServerConfig parses command-line args and holds server settings. It should:
 // - Accept an optional "-v" for verbose logging.
+// - Accept an optional "-r" to bind with SO_REUSEPORT for hot restarts.
+// - Accept an optional "-d <ms>" drain timeout used on shutdown.
+// - Accept an optional "-a <n>" number of acceptor threads. More than one
+//   requires -r: without SO_REUSEPORT they would all share one socket, and
+//   the JDK serializes accept() on a socket, so they would add no throughput.
+// - Accept optional per-connection limits: "-i <idleMs>" (0 disables the idle
+//   timeout), "-l <maxLineLength>" and "-c <maxConnections>".
+// - Accept optional worker pool bounds "-p <min>:<max>" and the number of
+//   quiet samples before the pool shrinks, "-h <samples>".
 // - Require a <port> argument.
 // - Print usage and return null if args are invalid.
-// - Expose the parsed port and verbose flag.
+// - Expose the parsed settings.
 //
 class ServerConfig {
+    static final long DEFAULT_DRAIN_MS = 5000;
+    static final long DEFAULT_IDLE_MS = 300_000;
+    static final int DEFAULT_MAX_LINE_LENGTH = 1024;
+    static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+
     final int port;
     final boolean verbose;
+    final boolean reusePort;
+    final long drainMs;
+    final int acceptors;
+    final long idleMs;
+    final int maxLineLength;
+    final int maxConnections;
+    final int minWorkers;
+    final int maxWorkers;
+    final int hysteresis;
 
-    private ServerConfig(int port, boolean verbose) {
+    private ServerConfig(int port, boolean verbose, boolean reusePort, long drainMs, int acceptors, long idleMs,
+            int maxLineLength, int maxConnections, int minWorkers, int maxWorkers, int hysteresis) {
         this.port = port;
         this.verbose = verbose;
+        this.reusePort = reusePort;
+        this.drainMs = drainMs;
+        this.acceptors = acceptors;
+        this.idleMs = idleMs;
+        this.maxLineLength = maxLineLength;
+        this.maxConnections = maxConnections;
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.hysteresis = hysteresis;
     }
 
     static ServerConfig fromArgs(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Usage: server.java [-v] <port>");
-            return null;
-        }
-        boolean verbose = "-v".equals(args[0]);
-        int portIndex = verbose ? 1 : 0;
-        if (args.length <= portIndex) {
-            System.err.println("Usage: server.java [-v] <port>");
-            return null;
-        }
+        boolean verbose = false;
+        boolean reusePort = false;
+        long drainMs = DEFAULT_DRAIN_MS;
+        int acceptors = 1;
+        long idleMs = DEFAULT_IDLE_MS;
+        int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+        int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        int minWorkers = WorkerPool.DEFAULT_MIN_WORKERS;
+        int maxWorkers = WorkerPool.DEFAULT_MAX_WORKERS;
+        int hysteresis = WorkerPool.DEFAULT_HYSTERESIS;
+        int index = 0;
         try {
-            int port = Integer.parseInt(args[portIndex]);
-            return new ServerConfig(port, verbose);
+            while (index < args.length && args[index].startsWith("-")) {
+                String flag = args[index++];
+                if (flag.equals("-v")) {
+                    verbose = true;
+                } else if (flag.equals("-r")) {
+                    reusePort = true;
+                } else if (flag.equals("-d") && index < args.length) {
+                    drainMs = Long.parseLong(args[index++]);
+                    if (drainMs < 0)
+                        return usage();
+                } else if (flag.equals("-a") && index < args.length) {
+                    acceptors = Integer.parseInt(args[index++]);
+                    if (acceptors < 1)
+                        return usage();
+                } else if (flag.equals("-i") && index < args.length) {
+                    idleMs = Long.parseLong(args[index++]);
+                    if (idleMs < 0)
+                        return usage();
+                } else if (flag.equals("-l") && index < args.length) {
+                    maxLineLength = Integer.parseInt(args[index++]);
+                    if (maxLineLength < 1)
+                        return usage();
+                } else if (flag.equals("-c") && index < args.length) {
+                    maxConnections = Integer.parseInt(args[index++]);
+                    if (maxConnections < 1)
+                        return usage();
+                } else if (flag.equals("-p") && index < args.length) {
+                    String[] bounds = args[index++].split(":");
+                    if (bounds.length != 2)
+                        return usage();
+                    minWorkers = Integer.parseInt(bounds[0]);
+                    maxWorkers = Integer.parseInt(bounds[1]);
+                    if (minWorkers < 0 || maxWorkers < 1 || minWorkers > maxWorkers)
+                        return usage();
+                } else if (flag.equals("-h") && index < args.length) {
+                    hysteresis = Integer.parseInt(args[index++]);
+                    if (hysteresis < 1)
+                        return usage();
+                } else {
+                    return usage();
+                }
+            }
+            if (args.length <= index || (acceptors > 1 && !reusePort))
+                return usage();
+            int port = Integer.parseInt(args[index]);
+            return new ServerConfig(port, verbose, reusePort, drainMs, acceptors, idleMs, maxLineLength,
+                    maxConnections, minWorkers, maxWorkers, hysteresis);
         } catch (NumberFormatException e) {
-            System.err.println("Usage: server.java [-v] <port>");
-            return null;
+            return usage();
         }
     }
+
+    private static ServerConfig usage() {
+        System.err.println("Usage: server.java [-v] [-r] [-d <drainMs>] [-a <acceptors>] [-i <idleMs>] [-l <maxLineLength>]"
+                + " [-c <maxConnections>] [-p <minWorkers>:<maxWorkers>] [-h <samples>] <port>");
+        return null;
+    }
 }
 
 // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -210,40 +886,459 @@ class ServerConfig {
 // - Keep a shared map of id -> Job.
 // - Generate monotonically increasing ids (1, 2, 3, ...).
 // - Think about which methods need synchronization for thread safety.
+// - Track jobs that are still running so shutdown can drain them.
+// - Hand jobs to a WorkerPool instead of starting a thread per job.
 //
 class JobRegistry {
     private final Map<Long, Job> jobs = new HashMap<>();
+    private final Set<Job> inFlight = new HashSet<>();
+    private final WorkerPool pool;
     private long nextId = 1;
 
+    JobRegistry() {
+        this(new WorkerPool());
+    }
+
+    JobRegistry(WorkerPool pool) {
+        this.pool = pool;
+    }
+
     synchronized Job createJob(long durationMs) {
         Job job = new Job(nextId, durationMs);
         jobs.put(nextId, job);
+        inFlight.add(job);
         nextId++;
-        new Thread(new JobWorker(job)).start();
+        pool.execute(() -> {
+            try {
+                new JobWorker(job, pool.getClock()).run();
+            } finally {
+                finished(job);
+            }
+        });
         return job;
     }
 
+    WorkerPool getPool() {
+        return pool;
+    }
+
     synchronized Job find(long id) {
         return jobs.get(id);
     }
+
+    private synchronized void finished(Job job) {
+        inFlight.remove(job);
+        notifyAll();
+    }
+
+    // Waits for every job that has been handed to a worker to reach a
+    // terminal state. Returns false if the timeout ran out first.
+    synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!inFlight.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    // Requests cancellation of every job that has not finished yet and
+    // returns how many accepted the request.
+    synchronized int cancelAll() {
+        int cancelled = 0;
+        for (Job job : inFlight) {
+            if (job.cancel())
+                cancelled++;
+        }
+        return cancelled;
+    }
+}
+
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// WorkerPool runs queued jobs on a set of worker threads whose size follows
+// the load. Every sampleMs a scaler thread looks at the queue and:
+// - Grows the pool when queued work cannot start right away (more queued
+//   than idle workers, or the oldest entry has waited a full sample). It at
+//   most doubles per sample so it reaches peak size in a few samples.
+// - Shrinks it by half of the idle workers once utilization has stayed
+//   below LOW_UTILIZATION with an empty queue for `hysteresis` samples in a
+//   row, so a short lull does not throw away threads we need again.
+// The size always stays within [minWorkers, maxWorkers]. Threads are only
+// started on the first execute(), and are daemons so they never keep the
+// JVM alive.
+//
+class WorkerPool {
+    static final int DEFAULT_MIN_WORKERS = 4;
+    static final int DEFAULT_MAX_WORKERS = 256;
+    static final int DEFAULT_HYSTERESIS = 5;
+    static final long DEFAULT_SAMPLE_MS = 100;
+    private static final double LOW_UTILIZATION = 0.5;
+
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int hysteresis;
+    private final long sampleMs;
+    private final boolean verbose;
+    private final Clock clock;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private boolean started;
+    private int workers;
+    private int busy;
+    private int retiring;
+    private int calmSamples;
+    private long grown;
+    private long shrunk;
+
+    WorkerPool() {
+        this(DEFAULT_MIN_WORKERS, DEFAULT_MAX_WORKERS, DEFAULT_HYSTERESIS, DEFAULT_SAMPLE_MS, false);
+    }
+
+    WorkerPool(int minWorkers, int maxWorkers, int hysteresis, long sampleMs, boolean verbose) {
+        this(minWorkers, maxWorkers, hysteresis, sampleMs, verbose, Clock.SYSTEM);
+    }
+
+    // A sampleMs of 0 starts no scaler thread; rescale() is then only run
+    // when called directly. Queue wait times, sampling and the jobs
+    // themselves all run on `clock`.
+    WorkerPool(int minWorkers, int maxWorkers, int hysteresis, long sampleMs, boolean verbose, Clock clock) {
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.hysteresis = hysteresis;
+        this.sampleMs = sampleMs;
+        this.verbose = verbose;
+        this.clock = clock;
+    }
+
+    Clock getClock() {
+        return clock;
+    }
+
+    synchronized void execute(Runnable task) {
+        if (!started) {
+            started = true;
+            addWorkers(minWorkers);
+            if (sampleMs > 0) {
+                Thread scaler = new Thread(this::scaleLoop, "pool-scaler");
+                scaler.setDaemon(true);
+                scaler.start();
+            }
+        }
+        queue.add(new Entry(task, clock.millis()));
+        notify();
+    }
+
+    synchronized void rescale() {
+        long now = clock.millis();
+        int queued = queue.size();
+        long waitMs = queued == 0 ? 0 : now - queue.peek().queuedAt;
+        int active = workers - retiring;
+        int idle = active - busy;
+
+        if (queued > 0 && (queued > idle || waitMs >= sampleMs) && active < maxWorkers) {
+            calmSamples = 0;
+            int add = Math.min(Math.max(1, queued - idle), Math.max(1, active));
+            add = Math.min(add, maxWorkers - active);
+            // Workers that were told to retire but have not left yet are
+            // the cheapest ones to get back.
+            int kept = Math.min(add, retiring);
+            retiring -= kept;
+            addWorkers(add - kept);
+            grown++;
+            log("grew", active, active + add, queued, waitMs);
+        } else if (queued == 0 && busy < active * LOW_UTILIZATION && active > minWorkers) {
+            if (++calmSamples < hysteresis)
+                return;
+            calmSamples = 0;
+            int remove = Math.min(Math.max(1, idle / 2), active - minWorkers);
+            retiring += remove;
+            notifyAll();
+            shrunk++;
+            log("shrank", active, active - remove, queued, waitMs);
+        } else {
+            calmSamples = 0;
+        }
+    }
+
+    // workers=<n> busy=<n> queued=<n> wait=<oldest queued ms> grown=<n> shrunk=<n>
+    synchronized String describe() {
+        long waitMs = queue.isEmpty() ? 0 : clock.millis() - queue.peek().queuedAt;
+        return "workers=" + (workers - retiring) + " busy=" + busy + " queued=" + queue.size() + " wait=" + waitMs
+                + "ms grown=" + grown + " shrunk=" + shrunk;
+    }
+
+    synchronized int workers() {
+        return workers - retiring;
+    }
+
+    synchronized int busy() {
+        return busy;
+    }
+
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    // Whether the scaler thread is running (and so sleeping on the clock
+    // between samples).
+    synchronized boolean hasScaler() {
+        return started && sampleMs > 0;
+    }
+
+    synchronized long grown() {
+        return grown;
+    }
+
+    synchronized long shrunk() {
+        return shrunk;
+    }
+
+    private void addWorkers(int count) {
+        for (int i = 0; i < count; i++) {
+            Thread t = new Thread(this::workLoop, "job-worker");
+            t.setDaemon(true);
+            t.start();
+        }
+        workers += count;
+    }
+
+    private void log(String action, int from, int to, int queued, long waitMs) {
+        if (verbose) {
+            System.out.println("Pool " + action + " " + from + " -> " + to + " (queued=" + queued + " wait=" + waitMs
+                    + "ms busy=" + busy + ")");
+        }
+    }
+
+    private void scaleLoop() {
+        while (true) {
+            try {
+                clock.sleep(sampleMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            rescale();
+        }
+    }
+
+    private void workLoop() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                try {
+                    while (queue.isEmpty() && retiring == 0) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    workers--;
+                    return;
+                }
+                if (retiring > 0) {
+                    retiring--;
+                    workers--;
+                    if (!queue.isEmpty())
+                        notify();
+                    return;
+                }
+                entry = queue.poll();
+                busy++;
+            }
+            // A task that throws must not take the worker with it: the
+            // thread would die without decrementing workers and the pool
+            // would go on counting it.
+            try {
+                entry.task.run();
+            } catch (Throwable t) {
+                System.err.println("Worker task failed: " + t);
+            } finally {
+                synchronized (this) {
+                    busy--;
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final Runnable task;
+        final long queuedAt;
+
+        Entry(Runnable task, long queuedAt) {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
+
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// Clock is where JobWorker and WorkerPool get the time and do their waiting.
+// The server runs on Clock.SYSTEM; tests and simulations pass a VirtualClock
+// and move time forward themselves.
+//
+interface Clock {
+    Clock SYSTEM = new SystemClock();
+
+    long millis();
+
+    void sleep(long ms) throws InterruptedException;
+}
+
+class SystemClock implements Clock {
+    @Override
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        Thread.sleep(ms);
+    }
+}
+
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// VirtualClock only moves when advance() is called. Threads in sleep() stay
+// blocked until the clock reaches their deadline, so a test can let a 10s
+// job run to completion in microseconds, or stop it between two chunks.
+//
+// blocked() and nextDeadline() let a driver find out when every sleeping
+// thread is parked and how far it has to advance to wake the next one.
+//
+class VirtualClock implements Clock {
+    // Threads blocked in sleep(). Each waits on its own Sleeper so advance()
+    // only wakes the threads that are due, not every sleeper.
+    private final List<Sleeper> sleepers = new ArrayList<>();
+    private long now;
+
+    @Override
+    public synchronized long millis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        if (ms <= 0)
+            return;
+        Sleeper sleeper;
+        synchronized (this) {
+            sleeper = new Sleeper(now + ms);
+            sleepers.add(sleeper);
+            notifyAll();
+        }
+        try {
+            synchronized (sleeper) {
+                while (!sleeper.woken) {
+                    sleeper.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                sleepers.remove(sleeper);
+            }
+            throw e;
+        }
+    }
+
+    void advance(long ms) {
+        List<Sleeper> due = new ArrayList<>();
+        synchronized (this) {
+            now += ms;
+            for (Iterator<Sleeper> it = sleepers.iterator(); it.hasNext();) {
+                Sleeper sleeper = it.next();
+                if (sleeper.deadline <= now) {
+                    due.add(sleeper);
+                    it.remove();
+                }
+            }
+        }
+        for (Sleeper sleeper : due) {
+            synchronized (sleeper) {
+                sleeper.woken = true;
+                sleeper.notify();
+            }
+        }
+    }
+
+    // Advances to the earliest sleeper's deadline. Returns false if nobody
+    // is waiting on the clock.
+    boolean advanceToNextDeadline() {
+        long step;
+        synchronized (this) {
+            long next = nextDeadline();
+            if (next < 0)
+                return false;
+            step = next - now;
+        }
+        advance(step);
+        return true;
+    }
+
+    // Earliest deadline still in the future, or -1 if there is none.
+    synchronized long nextDeadline() {
+        long next = -1;
+        for (Sleeper sleeper : sleepers) {
+            if (next < 0 || sleeper.deadline < next)
+                next = sleeper.deadline;
+        }
+        return next;
+    }
+
+    // Threads sleeping on a deadline the clock has not reached yet. Threads
+    // that advance() already released but that have not woken up are not
+    // counted.
+    synchronized int blocked() {
+        return sleepers.size();
+    }
+
+    // Waits (in real time, at most timeoutMs) until at least `count` threads
+    // are blocked in sleep().
+    synchronized boolean awaitBlocked(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (sleepers.size() < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private static class Sleeper {
+        final long deadline;
+        boolean woken;
+
+        Sleeper(long deadline) {
+            this.deadline = deadline;
+        }
+    }
 }
 
 // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 // JobWorker performs the simulated job work on its own thread and updates
-// the Job state as it starts, completes, or is cancelled.
+// the Job state as it starts, completes, or is cancelled. It sleeps on a
+// Clock, so under a VirtualClock a job only progresses when time is advanced.
 //
 // This class is provided, but you are expected to read it and understand how it
 // drives the Job lifecycle.
 //
 class JobWorker implements Runnable {
     private final Job job;
+    private final Clock clock;
 
     JobWorker(Job job) {
+        this(job, Clock.SYSTEM);
+    }
+
+    JobWorker(Job job, Clock clock) {
         this.job = job;
+        this.clock = clock;
     }
 
     @Override
     public void run() {
+        // Cancelled while still waiting in the queue: never start it.
+        if (job.isCancelled()) {
+            job.markCancelled();
+            return;
+        }
         job.markRunning();
 
         long remaining = job.getDurationMs();
@@ -254,16 +1349,12 @@ class JobWorker implements Runnable {
             remaining -= sleepFor;
         }
 
-        if (job.isCancelled()) {
-            job.markCancelled();
-        } else {
-            job.markDone();
-        }
+        job.finish();
     }
 
     private void sleepQuietly(long ms) {
         try {
-            Thread.sleep(ms);
+            clock.sleep(ms);
         } catch (InterruptedException ignored) {
             Thread.currentThread().interrupt();
         }
@@ -320,14 +1411,18 @@ class Job {
         state = JobState.RUNNING;
     }
 
-    synchronized void markDone() {
-        state = JobState.DONE;
-    }
-
     synchronized void markCancelled() {
         state = JobState.CANCELLED;
     }
 
+    // Ends the job as DONE, or as CANCELLED if a cancel was accepted. This
+    // has to be one synchronized step: checking isCancelled() and then
+    // setting DONE would let a cancel() in between report CANCELLED for a
+    // job that ends up DONE.
+    synchronized void finish() {
+        state = cancelRequested ? JobState.CANCELLED : JobState.DONE;
+    }
+
     synchronized boolean cancel() {
         if (state == JobState.CANCELLED || state == JobState.DONE) {
             return false;